@@ -0,0 +1,87 @@
+package fullstack2;
+
+import fullstack2.cluster.ClusterView;
+import fullstack2.cluster.PatientShard;
+import fullstack2.cluster.ShardClient;
+import fullstack2.cluster.ShardQuery;
+import fullstack2.cluster.TopKMerge;
+import io.quarkus.security.Authenticated;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Patient search over the sharded in-memory index.
+ * Each replica only holds the patients hashed to it; queries fan out to every shard and the
+ * sorted partial results are merged. With search.cluster.discovery=none there is a single shard.
+ *
+ * If any shard cannot answer, the search fails with 503 (or 502) instead of returning a partial
+ * list, so a missing patient is never mistaken for "no such patient".
+ * Replicas talk to each other through ShardResource.
+ */
+@Path("/search/patient")
+@Produces(MediaType.APPLICATION_JSON)
+@Authenticated
+public class PatientSearchResource {
+
+    @Inject
+    ClusterView clusterView;
+
+    @Inject
+    PatientShard shard;
+
+    @Inject
+    ShardClient shardClient;
+
+    @GET
+    public Uni<List<JsonObject>> search(
+            @QueryParam("name") String name,
+            @QueryParam("gender") String gender,
+            @QueryParam("age") Integer age,
+            @QueryParam("limit") int limit
+    ) {
+        ShardQuery query = new ShardQuery(name, gender, age, limit);
+        ClusterView.View view = clusterView.current();
+
+        // Any shard can hold matches for an attribute query, so ask all of them in parallel
+        List<Uni<List<JsonObject>>> partials = new ArrayList<>();
+        for (String member : view.members()) {
+            partials.add(view.isSelf(member)
+                    ? shard.search(query)
+                    : shardClient.search(member, view.id(), query));
+        }
+
+        return Uni.join().all(partials).andFailFast()
+                .onFailure(ServiceUnavailableException.class).invoke(clusterView::refreshInBackground)
+                .onItem().transform(parts -> TopKMerge.merge(
+                        parts, PatientShard.BY_NAME, query.limit(), p -> p.getString("user_id")));
+    }
+
+    @GET
+    @Path("/{userId}")
+    public Uni<List<JsonObject>> getById(@PathParam("userId") String userId) {
+        // A single patient lives on exactly one shard
+        ClusterView.View view = clusterView.current();
+        String owner = view.ownerOf(userId);
+        if (view.isSelf(owner)) {
+            return findLocal(userId);
+        }
+        return shardClient.findById(owner, view.id(), userId)
+                .onFailure(ServiceUnavailableException.class).invoke(clusterView::refreshInBackground);
+    }
+
+    private Uni<List<JsonObject>> findLocal(String userId) {
+        return shard.findById(userId)
+                .onItem().transform(patient -> patient.map(List::of).orElseGet(List::of));
+    }
+}
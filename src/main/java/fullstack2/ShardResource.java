@@ -0,0 +1,117 @@
+package fullstack2;
+
+import fullstack2.cluster.ClusterView;
+import fullstack2.cluster.PatientShard;
+import fullstack2.cluster.ShardClient;
+import fullstack2.cluster.ShardQuery;
+import io.smallrye.common.annotation.Blocking;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jakarta.annotation.security.PermitAll;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Replica-to-replica shard calls. Not behind OIDC: every call must carry search.cluster.secret in
+ * the X-Cluster-Secret header, and without a configured secret every call is refused.
+ */
+@Path("/internal/search/patient")
+@Produces(MediaType.APPLICATION_JSON)
+@PermitAll
+public class ShardResource {
+
+    @Inject
+    ClusterView clusterView;
+
+    @Inject
+    PatientShard shard;
+
+    @ConfigProperty(name = "search.cluster.secret")
+    Optional<String> secret;
+
+    @GET
+    public Uni<List<JsonObject>> search(
+            @QueryParam("name") String name,
+            @QueryParam("gender") String gender,
+            @QueryParam("age") Integer age,
+            @QueryParam("limit") int limit,
+            @QueryParam("view") String view,
+            @HeaderParam(ShardClient.SECRET_HEADER) String callerSecret
+    ) {
+        checkSecret(callerSecret);
+        checkView(view);
+        return shard.search(new ShardQuery(name, gender, age, limit));
+    }
+
+    @GET
+    @Path("/{userId}")
+    public Uni<List<JsonObject>> getById(
+            @PathParam("userId") String userId,
+            @QueryParam("view") String view,
+            @HeaderParam(ShardClient.SECRET_HEADER) String callerSecret
+    ) {
+        checkSecret(callerSecret);
+        checkView(view);
+        return shard.findById(userId)
+                .onItem().transform(patient -> patient.map(List::of).orElseGet(List::of));
+    }
+
+    @POST
+    @Path("/slice")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Blocking
+    public void receiveSlice(
+            @QueryParam("view") String view,
+            @QueryParam("batch") String batch,
+            @QueryParam("part") int part,
+            @QueryParam("parts") int parts,
+            @HeaderParam(ShardClient.SECRET_HEADER) String callerSecret,
+            JsonArray chunk
+    ) {
+        checkSecret(callerSecret);
+        if (view == null || batch == null || part < 0 || part >= parts) {
+            throw new WebApplicationException("view, batch, part and parts are required", Response.Status.BAD_REQUEST);
+        }
+
+        List<JsonObject> patients = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            patients.add(chunk.getJsonObject(i));
+        }
+        shard.receiveChunk(view, batch, part, parts, patients);
+    }
+
+    private void checkSecret(String callerSecret) {
+        byte[] expected = secret.filter(s -> !s.isBlank()).orElse("").getBytes(StandardCharsets.UTF_8);
+        byte[] actual = callerSecret == null ? new byte[0] : callerSecret.getBytes(StandardCharsets.UTF_8);
+        if (expected.length == 0 || !MessageDigest.isEqual(expected, actual)) {
+            throw new ForbiddenException("Not a cluster member");
+        }
+    }
+
+    private void checkView(String view) {
+        if (view == null || !view.equals(clusterView.current().id())) {
+            // Our membership may simply be behind; look again so the next call agrees
+            clusterView.refreshInBackground();
+            throw new WebApplicationException("Cluster view mismatch", Response.Status.CONFLICT);
+        }
+    }
+}
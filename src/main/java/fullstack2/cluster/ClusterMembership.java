@@ -0,0 +1,16 @@
+package fullstack2.cluster;
+
+import java.util.List;
+
+/**
+ * Tells a replica who else is serving search traffic.
+ * Members are base URLs (e.g. http://10.42.0.17:8083) so they can be used directly for shard calls.
+ */
+public interface ClusterMembership {
+
+    // Base URL of this replica, exactly as it appears in members()
+    String self();
+
+    // Base URLs of every live replica, including self
+    List<String> members();
+}
@@ -0,0 +1,105 @@
+package fullstack2.cluster;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cached membership view and hash ring. Membership discovery (which may block on DNS) only runs
+ * from the scheduler, so request threads just read the current view.
+ */
+@ApplicationScoped
+public class ClusterView {
+
+    private static final Logger LOG = Logger.getLogger(ClusterView.class);
+
+    @Inject
+    ClusterMembership membership;
+
+    @Inject
+    Event<View> changes;
+
+    @ConfigProperty(name = "search.cluster.discovery", defaultValue = "none")
+    String discovery;
+
+    private volatile View current;
+
+    /**
+     * One replica's idea of the cluster. The id is sent along with shard calls so replicas can
+     * tell when they disagree about who owns what.
+     */
+    public record View(String id, String self, List<String> members, ConsistentHashRing ring) {
+
+        // The first member scans Keycloak and hands the other members their slices
+        public String loader() {
+            return members.get(0);
+        }
+
+        public boolean isLoader() {
+            return self.equals(loader());
+        }
+
+        public boolean isSelf(String member) {
+            return self.equals(member);
+        }
+
+        public String ownerOf(String userId) {
+            return ring.ownerOf(userId);
+        }
+    }
+
+    public static View viewOf(String self, List<String> members) {
+        List<String> sorted = new ArrayList<>(members);
+        sorted.sort(null);
+        // List.hashCode is defined by String.hashCode, so every JVM computes the same id
+        String id = Integer.toHexString(sorted.hashCode());
+        return new View(id, self, List.copyOf(sorted), new ConsistentHashRing(sorted));
+    }
+
+    // False for discovery=none: a single replica that builds its index lazily
+    public boolean isClustered() {
+        return !"none".equals(discovery);
+    }
+
+    public View current() {
+        View view = current;
+        if (view == null) {
+            // Only before startup has finished
+            refresh();
+            view = current;
+        }
+        return view;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        refresh();
+    }
+
+    @Scheduled(every = "${search.cluster.membership-refresh}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    synchronized void refresh() {
+        View previous = current;
+        View next = viewOf(membership.self(), membership.members());
+        if (previous != null && previous.id().equals(next.id())) {
+            return;
+        }
+
+        current = next;
+        LOG.infof("Cluster view %s: %s (loader %s)", next.id(), next.members(), next.loader());
+        if (previous != null) {
+            changes.fire(next);
+        }
+    }
+
+    public void refreshInBackground() {
+        Infrastructure.getDefaultWorkerPool().execute(this::refresh);
+    }
+}
@@ -0,0 +1,58 @@
+package fullstack2.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps user ids to replicas. Each member gets several virtual nodes on the ring so keys spread
+ * evenly, and adding/removing a replica only moves the keys next to its own nodes.
+ */
+public class ConsistentHashRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> members;
+
+    public ConsistentHashRing(List<String> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("Hash ring needs at least one member");
+        }
+        this.members = List.copyOf(members);
+        for (String member : this.members) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    public String ownerOf(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            // Wrap around to the start of the ring
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    public List<String> members() {
+        return members;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
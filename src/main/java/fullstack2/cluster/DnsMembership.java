@@ -0,0 +1,59 @@
+package fullstack2.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Members resolved from a Kubernetes headless service: one A record per ready pod.
+ * Resolved from ClusterView's scheduled refresh, never on a request thread, so scaling the deployment
+ * changes the ring without a restart (the JVM still caches lookups for networkaddress.cache.ttl seconds).
+ */
+public class DnsMembership implements ClusterMembership {
+
+    private final String serviceName;
+    private final int port;
+    private final String self;
+
+    public DnsMembership(String serviceName, int port) {
+        this.serviceName = serviceName;
+        this.port = port;
+        try {
+            // In a pod the hostname resolves to the pod IP, which is what the headless service returns
+            this.self = url(InetAddress.getLocalHost().getHostAddress());
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Could not resolve own address for cluster membership", e);
+        }
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> members() {
+        List<String> members = new ArrayList<>();
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(serviceName);
+            Arrays.stream(addresses)
+                    .map(InetAddress::getHostAddress)
+                    .distinct()
+                    .forEach(ip -> members.add(url(ip)));
+        } catch (UnknownHostException e) {
+            // Service has no ready endpoints yet -> we are on our own
+        }
+
+        if (!members.contains(self)) {
+            // Not ready yet (or not yet published), still serve our own shard
+            members.add(self);
+        }
+        return members;
+    }
+
+    private String url(String ip) {
+        return "http://" + ip + ":" + port;
+    }
+}
@@ -0,0 +1,327 @@
+package fullstack2.cluster;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.core.json.JsonObject;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The slice of patients this replica owns on the hash ring, kept in memory and sorted by user name.
+ *
+ * In cluster mode only the loader (first member of the view) scans Keycloak. It keeps its own slice
+ * and pushes every other member theirs in chunks, so the realm is scanned once per refresh no matter
+ * how many replicas run. Refreshes happen in the background while the previous snapshot keeps serving.
+ * A snapshot cut for another view is never served, since it could miss patients that moved here.
+ *
+ * With discovery=none nothing runs in the background: the index is built on the first request and
+ * refreshed lazily once it is older than search.cluster.shard-ttl.
+ */
+@ApplicationScoped
+public class PatientShard {
+
+    private static final Logger LOG = Logger.getLogger(PatientShard.class);
+    private static final int PAGE_SIZE = 100;
+
+    public static final Comparator<JsonObject> BY_NAME = Comparator
+            .comparing((JsonObject p) -> p.getString("user_name", ""), String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(p -> p.getString("user_id", ""));
+
+    @Inject
+    Keycloak keycloak;
+
+    @Inject
+    ClusterView clusterView;
+
+    @Inject
+    ShardClient shardClient;
+
+    @ConfigProperty(name = "keycloak.realm")
+    String realm;
+
+    @ConfigProperty(name = "search.cluster.shard-ttl", defaultValue = "5m")
+    Duration ttl;
+
+    // How long a non-loader waits for the loader's push after a view change before scanning itself
+    @ConfigProperty(name = "search.cluster.push-grace", defaultValue = "30s")
+    Duration pushGrace;
+
+    @ConfigProperty(name = "search.cluster.push-chunk-size", defaultValue = "2000")
+    int pushChunkSize;
+
+    private record Snapshot(String viewId, Instant builtAt, List<JsonObject> patients, Map<String, JsonObject> byId) {
+    }
+
+    private final ReentrantLock buildLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    // Slice currently being pushed to us, guarded by this
+    private String pendingBatch;
+    private int pendingNext;
+    private List<JsonObject> pendingPatients;
+
+    public Uni<List<JsonObject>> search(ShardQuery query) {
+        return Uni.createFrom().item(() -> {
+            // Patients are sorted, so the first matches are already this shard's top-k
+            return servingSnapshot().patients().stream()
+                    .filter(query::matches)
+                    .limit(query.limit())
+                    .toList();
+        }).runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    public Uni<Optional<JsonObject>> findById(String userId) {
+        return Uni.createFrom().item(() -> Optional.ofNullable(servingSnapshot().byId().get(userId)))
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    /**
+     * One chunk of the slice the loader computed for us. Chunks must arrive in order; the slice is
+     * installed when the last one is in. Chunks for another view than ours are rejected, so a late
+     * push from an older loader can't overwrite a newer slice.
+     */
+    public synchronized void receiveChunk(String viewId, String batch, int part, int parts, List<JsonObject> patients) {
+        if (!clusterView.current().id().equals(viewId)) {
+            clusterView.refreshInBackground();
+            throw new WebApplicationException("Slice is for cluster view " + viewId, Response.Status.CONFLICT);
+        }
+
+        if (part == 0) {
+            pendingBatch = batch;
+            pendingNext = 0;
+            pendingPatients = new ArrayList<>();
+        } else if (!batch.equals(pendingBatch) || part != pendingNext) {
+            throw new WebApplicationException("Unexpected chunk " + part + " of batch " + batch, Response.Status.CONFLICT);
+        }
+
+        pendingPatients.addAll(patients);
+        pendingNext++;
+
+        if (pendingNext == parts) {
+            install(viewId, pendingPatients);
+            pendingBatch = null;
+            pendingPatients = null;
+        }
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (clusterView.isClustered()) {
+            refreshInBackground();
+        }
+    }
+
+    void onViewChange(@Observes ClusterView.View view) {
+        if (view.isLoader()) {
+            refreshInBackground();
+        } else {
+            // Give the loader time to push our new slice; refresh() scans only if it still hasn't
+            Infrastructure.getDefaultWorkerPool().schedule(this::refresh, pushGrace.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Scheduled(every = "${search.cluster.shard-ttl}", delayed = "${search.cluster.shard-ttl}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledRefresh() {
+        if (clusterView.isClustered()) {
+            refresh();
+        }
+    }
+
+    void refresh() {
+        if (!buildLock.tryLock()) {
+            // A build is already running
+            return;
+        }
+        ClusterView.View view = clusterView.current();
+        try {
+            if (!clusterView.isClustered()) {
+                buildOwn(view);
+            } else if (view.isLoader()) {
+                distribute(view);
+            } else if (needsOwnBuild(snapshot, view)) {
+                LOG.warnf("No slice from loader %s for view %s, scanning Keycloak for our own", view.loader(), view.id());
+                buildOwn(view);
+            }
+        } catch (RuntimeException e) {
+            LOG.errorf(e, "Patient shard refresh failed, still serving previous snapshot");
+        } finally {
+            buildLock.unlock();
+        }
+
+        if (!view.id().equals(clusterView.current().id())) {
+            // The view changed while we were building and that refresh was skipped
+            refreshInBackground();
+        }
+    }
+
+    private void refreshInBackground() {
+        Infrastructure.getDefaultWorkerPool().execute(this::refresh);
+    }
+
+    private boolean needsOwnBuild(Snapshot s, ClusterView.View view) {
+        return s != null && (!s.viewId().equals(view.id()) || isOlderThan(s, ttl.multipliedBy(2)));
+    }
+
+    private boolean isOlderThan(Snapshot s, Duration age) {
+        return s.builtAt().plus(age).isBefore(Instant.now());
+    }
+
+    private Snapshot servingSnapshot() {
+        Snapshot s = snapshotForRequest();
+        ClusterView.View view = clusterView.current();
+        if (!s.viewId().equals(view.id())) {
+            // Cut for another ring: answering could silently drop patients that moved to us
+            throw new ServiceUnavailableException("Patient shard is being rebuilt for cluster view " + view.id());
+        }
+        if (!clusterView.isClustered() && isOlderThan(s, ttl)) {
+            refreshInBackground();
+        }
+        return s;
+    }
+
+    private Snapshot snapshotForRequest() {
+        Snapshot s = snapshot;
+        if (s != null) {
+            return s;
+        }
+
+        // Cold start: wait for a build that is already running, or do one ourselves
+        buildLock.lock();
+        try {
+            if (snapshot == null) {
+                ClusterView.View view = clusterView.current();
+                if (view.isLoader() && clusterView.isClustered()) {
+                    distribute(view);
+                } else {
+                    buildOwn(view);
+                }
+            }
+            return snapshot;
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private void install(String viewId, List<JsonObject> patients) {
+        List<JsonObject> sorted = new ArrayList<>(patients);
+        sorted.sort(BY_NAME);
+
+        Map<String, JsonObject> byId = new HashMap<>();
+        for (JsonObject patient : sorted) {
+            byId.put(patient.getString("user_id"), patient);
+        }
+
+        snapshot = new Snapshot(viewId, Instant.now(), List.copyOf(sorted), Map.copyOf(byId));
+        LOG.debugf("Installed %d patients for view %s", sorted.size(), viewId);
+    }
+
+    private void buildOwn(ClusterView.View view) {
+        install(view.id(), scan(view, false).getOrDefault(view.self(), List.of()));
+    }
+
+    // Holds the whole realm until every member has its slice; peak memory here grows with realm size
+    private void distribute(ClusterView.View view) {
+        Map<String, List<JsonObject>> slices = scan(view, true);
+        install(view.id(), slices.getOrDefault(view.self(), List.of()));
+
+        String batch = UUID.randomUUID().toString();
+        List<Uni<Void>> pushes = new ArrayList<>();
+        for (String member : view.members()) {
+            if (view.isSelf(member)) continue;
+
+            pushes.add(pushInChunks(member, view.id(), batch, slices.getOrDefault(member, List.of()))
+                    .onFailure().recoverWithItem(t -> {
+                        LOG.warnf("Could not push slice to %s: %s", member, t.getMessage());
+                        return null;
+                    }));
+        }
+
+        if (!pushes.isEmpty()) {
+            Uni.join().all(pushes).andCollectFailures().await().indefinitely();
+        }
+    }
+
+    // Chunks go out one after another so the receiver can assemble them in order
+    private Uni<Void> pushInChunks(String member, String viewId, String batch, List<JsonObject> slice) {
+        int parts = Math.max(1, (slice.size() + pushChunkSize - 1) / pushChunkSize);
+        Uni<Void> chain = Uni.createFrom().voidItem();
+        for (int part = 0; part < parts; part++) {
+            int p = part;
+            List<JsonObject> chunk = slice.subList(part * pushChunkSize, Math.min(slice.size(), (part + 1) * pushChunkSize));
+            chain = chain.onItem().transformToUni(v -> shardClient.pushSlice(member, viewId, batch, p, parts, chunk));
+        }
+        return chain;
+    }
+
+    // Buckets users by owner. With allOwners=false only our own bucket is kept
+    private Map<String, List<JsonObject>> scan(ClusterView.View view, boolean allOwners) {
+        Instant started = Instant.now();
+        Map<String, List<JsonObject>> slices = new HashMap<>();
+        int scanned = 0;
+
+        for (int first = 0; ; first += PAGE_SIZE) {
+            List<UserRepresentation> page = keycloak.realm(realm)
+                    .users()
+                    .list(first, PAGE_SIZE);
+
+            for (UserRepresentation user : page) {
+                String owner = view.ownerOf(user.getId());
+                if (allOwners || view.isSelf(owner)) {
+                    slices.computeIfAbsent(owner, k -> new ArrayList<>()).add(toJson(user));
+                }
+            }
+            scanned += page.size();
+
+            if (page.size() < PAGE_SIZE) break;
+        }
+
+        LOG.infof("Scanned %d users for view %s (%d members) in %d ms",
+                scanned, view.id(), view.members().size(),
+                Duration.between(started, Instant.now()).toMillis());
+        return slices;
+    }
+
+    private JsonObject toJson(UserRepresentation user) {
+        Map<String, List<String>> attrs = user.getAttributes();
+
+        return new JsonObject()
+                .put("user_id", user.getId())
+                .put("user_name", user.getUsername())
+                .put("email", user.getEmail())
+                .put("address", getAttr(attrs, "address"))
+                .put("age", getAttr(attrs, "age"))
+                .put("gender", getAttr(attrs, "gender"));
+    }
+
+    private String getAttr(Map<String, List<String>> attrs, String key) {
+        if (attrs != null && attrs.containsKey(key)) {
+            List<String> values = attrs.get(key);
+            if (values != null && !values.isEmpty()) {
+                return values.get(0);
+            }
+        }
+        return null;
+    }
+}
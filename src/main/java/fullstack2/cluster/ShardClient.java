@@ -0,0 +1,119 @@
+package fullstack2.cluster;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.ext.web.client.HttpRequest;
+import io.vertx.mutiny.ext.web.client.HttpResponse;
+import io.vertx.mutiny.ext.web.client.WebClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Calls the /internal/search/patient endpoints on other replicas.
+ *
+ * Every call carries the cluster secret and the caller's view id; a shard with a different view
+ * answers 409, a shard still rebuilding for the current view answers 503.
+ * Unreachable shards, timeouts and view mismatches surface as 503 (worth retrying), any other
+ * bad answer from a shard as 502.
+ */
+@ApplicationScoped
+public class ShardClient {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    @Inject
+    Vertx vertx;
+
+    @ConfigProperty(name = "search.cluster.shard-timeout", defaultValue = "5s")
+    Duration timeout;
+
+    @ConfigProperty(name = "search.cluster.shard-connect-timeout", defaultValue = "2s")
+    Duration connectTimeout;
+
+    @ConfigProperty(name = "search.cluster.secret")
+    Optional<String> secret;
+
+    private WebClient client;
+
+    @PostConstruct
+    void init() {
+        client = WebClient.create(vertx, new WebClientOptions()
+                .setConnectTimeout((int) connectTimeout.toMillis()));
+    }
+
+    @PreDestroy
+    void close() {
+        client.close();
+    }
+
+    public Uni<List<JsonObject>> search(String member, String viewId, ShardQuery query) {
+        HttpRequest<Buffer> request = client.getAbs(member + "/internal/search/patient?" + query.toQueryString());
+        return send(member, viewId, request, null).onItem().transform(ShardClient::toList);
+    }
+
+    public Uni<List<JsonObject>> findById(String member, String viewId, String userId) {
+        HttpRequest<Buffer> request = client.getAbs(member + "/internal/search/patient/" + encode(userId));
+        return send(member, viewId, request, null).onItem().transform(ShardClient::toList);
+    }
+
+    public Uni<Void> pushSlice(String member, String viewId, String batch, int part, int parts, List<JsonObject> chunk) {
+        HttpRequest<Buffer> request = client.postAbs(member + "/internal/search/patient/slice")
+                .addQueryParam("batch", batch)
+                .addQueryParam("part", String.valueOf(part))
+                .addQueryParam("parts", String.valueOf(parts));
+        return send(member, viewId, request, new JsonArray(new ArrayList<Object>(chunk))).replaceWithVoid();
+    }
+
+    private Uni<HttpResponse<Buffer>> send(String member, String viewId, HttpRequest<Buffer> request, JsonArray body) {
+        request.addQueryParam("view", viewId)
+                .timeout(timeout.toMillis())
+                .putHeader("Accept", "application/json")
+                .putHeader(SECRET_HEADER, secret.orElse(""));
+
+        Uni<HttpResponse<Buffer>> call = body == null ? request.send() : request.sendJson(body);
+        return call
+                .onFailure().transform(t -> new ServiceUnavailableException("Shard " + member + " unavailable: " + t.getMessage()))
+                .onItem().invoke(response -> {
+                    int status = response.statusCode();
+                    if (status == Response.Status.CONFLICT.getStatusCode()) {
+                        throw new ServiceUnavailableException("Shard " + member + " has a different cluster view");
+                    }
+                    if (status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+                        throw new ServiceUnavailableException("Shard " + member + " is rebuilding");
+                    }
+                    if (status < 200 || status >= 300) {
+                        throw new WebApplicationException("Shard " + member + " answered " + status, Response.Status.BAD_GATEWAY);
+                    }
+                });
+    }
+
+    private static List<JsonObject> toList(HttpResponse<Buffer> response) {
+        JsonArray array = response.bodyAsJsonArray();
+        List<JsonObject> result = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            result.add(array.getJsonObject(i));
+        }
+        return result;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package fullstack2.cluster;
+
+import io.vertx.core.json.JsonObject;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.StringJoiner;
+
+/**
+ * Patient search filters. Every filter is optional; name matches as a case-insensitive prefix.
+ */
+public record ShardQuery(String name, String gender, Integer age, int limit) {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    public ShardQuery {
+        if (limit <= 0) limit = DEFAULT_LIMIT;
+        if (limit > MAX_LIMIT) limit = MAX_LIMIT;
+        if (name != null && name.isBlank()) name = null;
+        if (gender != null && gender.isBlank()) gender = null;
+    }
+
+    public boolean matches(JsonObject patient) {
+        if (name != null) {
+            String userName = patient.getString("user_name");
+            if (userName == null || !userName.regionMatches(true, 0, name, 0, name.length())) {
+                return false;
+            }
+        }
+        if (gender != null && !gender.equalsIgnoreCase(patient.getString("gender"))) {
+            return false;
+        }
+        // Keycloak stores attributes as strings, so compare using String
+        if (age != null && !String.valueOf(age).equals(patient.getString("age"))) {
+            return false;
+        }
+        return true;
+    }
+
+    // Query string used when forwarding this query to another shard
+    public String toQueryString() {
+        StringJoiner params = new StringJoiner("&");
+        if (name != null) params.add("name=" + encode(name));
+        if (gender != null) params.add("gender=" + encode(gender));
+        if (age != null) params.add("age=" + age);
+        params.add("limit=" + limit);
+        return params.toString();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
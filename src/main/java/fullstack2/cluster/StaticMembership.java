@@ -0,0 +1,31 @@
+package fullstack2.cluster;
+
+import java.util.List;
+
+/**
+ * Fixed member list from config. Used for a single replica (the default) and for running
+ * several JVMs on one machine, e.g. http://localhost:8083,http://localhost:8084.
+ */
+public class StaticMembership implements ClusterMembership {
+
+    private final String self;
+    private final List<String> members;
+
+    public StaticMembership(String self, List<String> members) {
+        if (!members.contains(self)) {
+            throw new IllegalArgumentException("search.cluster.self " + self + " is not one of the members " + members);
+        }
+        this.self = self;
+        this.members = List.copyOf(members);
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> members() {
+        return members;
+    }
+}
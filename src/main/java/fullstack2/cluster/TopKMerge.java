@@ -0,0 +1,51 @@
+package fullstack2.cluster;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Merges already-sorted shard results into one sorted list of at most k items.
+ * Only the head of each shard list is in the heap, so a merge costs O(k log shards).
+ * Items with the same key are only kept once, since two shards can both return a patient while
+ * their views of the ring disagree.
+ */
+public final class TopKMerge {
+
+    private TopKMerge() {
+    }
+
+    public static <T> List<T> merge(List<List<T>> sortedParts, Comparator<? super T> order, int k,
+                                    Function<? super T, ?> key) {
+        // Heap entries are {part index, position in part}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                Math.max(1, sortedParts.size()),
+                (a, b) -> order.compare(sortedParts.get(a[0]).get(a[1]), sortedParts.get(b[0]).get(b[1])));
+
+        for (int i = 0; i < sortedParts.size(); i++) {
+            if (!sortedParts.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+
+        List<T> result = new ArrayList<>(Math.min(k, 64));
+        Set<Object> seen = new HashSet<>();
+        while (result.size() < k && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> part = sortedParts.get(head[0]);
+            T item = part.get(head[1]);
+            if (seen.add(key.apply(item))) {
+                result.add(item);
+            }
+
+            if (head[1] + 1 < part.size()) {
+                heads.add(new int[]{head[0], head[1] + 1});
+            }
+        }
+        return result;
+    }
+}
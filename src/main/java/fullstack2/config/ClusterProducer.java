@@ -0,0 +1,52 @@
+package fullstack2.config;
+
+import fullstack2.cluster.ClusterMembership;
+import fullstack2.cluster.DnsMembership;
+import fullstack2.cluster.StaticMembership;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Produces;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.List;
+import java.util.Optional;
+
+@ApplicationScoped
+public class ClusterProducer {
+
+    // none = single replica, static = search.cluster.members, dns = search.cluster.dns-name
+    @ConfigProperty(name = "search.cluster.discovery", defaultValue = "none")
+    String discovery;
+
+    @ConfigProperty(name = "search.cluster.self")
+    String self;
+
+    @ConfigProperty(name = "search.cluster.members")
+    Optional<List<String>> members;
+
+    @ConfigProperty(name = "search.cluster.dns-name")
+    Optional<String> dnsName;
+
+    @ConfigProperty(name = "quarkus.http.port")
+    int port;
+
+    // Shared by all replicas, checked on every internal shard call
+    @ConfigProperty(name = "search.cluster.secret")
+    Optional<String> secret;
+
+    @Produces
+    @ApplicationScoped
+    public ClusterMembership clusterMembership() {
+        if (!"none".equals(discovery) && secret.filter(s -> !s.isBlank()).isEmpty()) {
+            throw new IllegalStateException("search.cluster.secret is required for " + discovery + " discovery");
+        }
+
+        return switch (discovery) {
+            case "none" -> new StaticMembership(self, List.of(self));
+            case "static" -> new StaticMembership(self, members.orElseThrow(
+                    () -> new IllegalStateException("search.cluster.members is required for static discovery")));
+            case "dns" -> new DnsMembership(dnsName.orElseThrow(
+                    () -> new IllegalStateException("search.cluster.dns-name is required for dns discovery")), port);
+            default -> throw new IllegalStateException("Unknown search.cluster.discovery: " + discovery);
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package fullstack2;
+
+import fullstack2.cluster.ClusterView;
+import fullstack2.cluster.ShardClient;
+import fullstack2.cluster.ShardQuery;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.vertx.core.json.JsonObject;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServiceUnavailableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@QuarkusTest
+class PatientSearchResourceTest {
+
+    @InjectMock
+    Keycloak keycloak;
+
+    @Inject
+    ClusterView clusterView;
+
+    @Inject
+    ShardClient shardClient;
+
+    @TestHTTPResource("/")
+    URL url;
+
+    @BeforeEach
+    void setUp() {
+        RealmResource realm = mock(RealmResource.class);
+        UsersResource users = mock(UsersResource.class);
+        when(keycloak.realm("journal")).thenReturn(realm);
+        when(realm.users()).thenReturn(users);
+        when(users.list(0, 100)).thenReturn(List.of(
+                user("id-1", "bo", "male", "40"),
+                user("id-2", "anna", "female", "42"),
+                user("id-3", "cia", "female", "30")));
+    }
+
+    @Test
+    void searchRequiresLogin() {
+        given()
+                .when().get("/search/patient")
+                .then()
+                .statusCode(401);
+    }
+
+    @Test
+    @TestSecurity(user = "doctor")
+    void searchFiltersAndSortsByName() {
+        given()
+                .when().get("/search/patient?gender=female")
+                .then()
+                .statusCode(200)
+                .body("user_name", contains("anna", "cia"));
+    }
+
+    @Test
+    @TestSecurity(user = "doctor")
+    void getByIdReturnsOwnedPatient() {
+        given()
+                .when().get("/search/patient/id-1")
+                .then()
+                .statusCode(200)
+                .body("[0].user_name", is("bo"));
+    }
+
+    @Test
+    void internalEndpointsRequireClusterSecretAndView() {
+        String view = clusterView.current().id();
+
+        given()
+                .when().get("/internal/search/patient?view=" + view)
+                .then()
+                .statusCode(403);
+        given()
+                .header(ShardClient.SECRET_HEADER, "wrong")
+                .contentType("application/json")
+                .body("[]")
+                .when().post("/internal/search/patient/slice?view=" + view + "&batch=b&part=0&parts=1")
+                .then()
+                .statusCode(403);
+        given()
+                .header(ShardClient.SECRET_HEADER, "test-secret")
+                .when().get("/internal/search/patient?view=other")
+                .then()
+                .statusCode(409);
+        given()
+                .header(ShardClient.SECRET_HEADER, "test-secret")
+                .when().get("/internal/search/patient?gender=male&view=" + view)
+                .then()
+                .statusCode(200)
+                .body("user_name", contains("bo"));
+    }
+
+    @Test
+    void shardClientPushIsAcceptedByReplica() {
+        String self = url.toString().replaceAll("/$", "");
+        String view = clusterView.current().id();
+        // Same patients as Keycloak returns, so other tests see the same index
+        List<JsonObject> slice = List.of(
+                patient("id-1", "bo", "male"),
+                patient("id-2", "anna", "female"),
+                patient("id-3", "cia", "female"));
+
+        shardClient.pushSlice(self, view, "batch", 0, 1, slice).await().indefinitely();
+        List<JsonObject> result = shardClient.search(self, view, new ShardQuery("an", null, null, 10)).await().indefinitely();
+        assertEquals("anna", result.get(0).getString("user_name"));
+
+        // A push cut for another membership is refused
+        assertThrows(ServiceUnavailableException.class,
+                () -> shardClient.pushSlice(self, "stale", "old", 0, 1, List.of()).await().indefinitely());
+    }
+
+    private static UserRepresentation user(String id, String name, String gender, String age) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(name);
+        user.setAttributes(Map.of("gender", List.of(gender), "age", List.of(age)));
+        return user;
+    }
+
+    private static JsonObject patient(String id, String name, String gender) {
+        return new JsonObject().put("user_id", id).put("user_name", name).put("gender", gender);
+    }
+}
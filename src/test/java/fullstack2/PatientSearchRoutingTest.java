@@ -0,0 +1,90 @@
+package fullstack2;
+
+import fullstack2.cluster.ClusterView;
+import fullstack2.cluster.PatientShard;
+import fullstack2.cluster.ShardClient;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import jakarta.ws.rs.ServiceUnavailableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PatientSearchRoutingTest {
+
+    private static final String SELF = "http://localhost:8083";
+    private static final String OTHER = "http://localhost:8084";
+
+    private final ClusterView.View view = ClusterView.viewOf(SELF, List.of(SELF, OTHER));
+    private PatientSearchResource resource;
+
+    @BeforeEach
+    void setUp() {
+        resource = new PatientSearchResource();
+        resource.clusterView = mock(ClusterView.class);
+        resource.shard = mock(PatientShard.class);
+        resource.shardClient = mock(ShardClient.class);
+        when(resource.clusterView.current()).thenReturn(view);
+    }
+
+    @Test
+    void searchAsksLocalShardAndRemoteShardsAndMerges() {
+        when(resource.shard.search(any())).thenReturn(Uni.createFrom().item(List.of(patient("1", "anna"), patient("3", "cia"))));
+        when(resource.shardClient.search(eq(OTHER), eq(view.id()), any()))
+                .thenReturn(Uni.createFrom().item(List.of(patient("1", "anna"), patient("2", "bo"))));
+
+        List<JsonObject> result = resource.search(null, null, null, 10).await().indefinitely();
+
+        // Sorted across shards, and "anna" reported by both shards only once
+        assertEquals(List.of("anna", "bo", "cia"), result.stream().map(p -> p.getString("user_name")).toList());
+    }
+
+    @Test
+    void searchFailsWhenAShardIsUnavailable() {
+        when(resource.shard.search(any())).thenReturn(Uni.createFrom().item(List.of()));
+        when(resource.shardClient.search(anyString(), anyString(), any()))
+                .thenReturn(Uni.createFrom().failure(new ServiceUnavailableException("down")));
+
+        assertThrows(ServiceUnavailableException.class,
+                () -> resource.search(null, null, null, 10).await().indefinitely());
+        verify(resource.clusterView).refreshInBackground();
+    }
+
+    @Test
+    void getByIdGoesToOwningShardOnly() {
+        String localId = idOwnedBy(SELF);
+        String remoteId = idOwnedBy(OTHER);
+        when(resource.shard.findById(localId)).thenReturn(Uni.createFrom().item(Optional.of(patient(localId, "anna"))));
+        when(resource.shardClient.findById(OTHER, view.id(), remoteId))
+                .thenReturn(Uni.createFrom().item(List.of(patient(remoteId, "bo"))));
+
+        assertEquals("anna", resource.getById(localId).await().indefinitely().get(0).getString("user_name"));
+        assertEquals("bo", resource.getById(remoteId).await().indefinitely().get(0).getString("user_name"));
+        verify(resource.shardClient, never()).findById(anyString(), anyString(), eq(localId));
+        verify(resource.shard, never()).findById(remoteId);
+    }
+
+    private String idOwnedBy(String member) {
+        for (int i = 0; ; i++) {
+            if (view.ownerOf("id-" + i).equals(member)) {
+                return "id-" + i;
+            }
+        }
+    }
+
+    private static JsonObject patient(String id, String name) {
+        return new JsonObject().put("user_id", id).put("user_name", name);
+    }
+}
@@ -0,0 +1,219 @@
+package fullstack2.cluster;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PatientShardTest {
+
+    private static final String A = "http://localhost:8083";
+    private static final String B = "http://localhost:8084";
+
+    private Keycloak keycloak;
+    private ClusterView clusterView;
+    private ShardClient shardClient;
+    private PatientShard shard;
+
+    @BeforeEach
+    void setUp() {
+        // 150 users -> two pages of 100 and 50
+        List<UserRepresentation> users = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            UserRepresentation user = new UserRepresentation();
+            user.setId("id-" + i);
+            user.setUsername(String.format("user%03d", 149 - i));
+            user.setAttributes(Map.of(
+                    "gender", List.of(i % 2 == 0 ? "female" : "male"),
+                    "age", List.of(String.valueOf(20 + i % 10))));
+            users.add(user);
+        }
+
+        keycloak = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+        when(keycloak.realm("journal").users().list(0, 100)).thenReturn(users.subList(0, 100));
+        when(keycloak.realm("journal").users().list(100, 100)).thenReturn(users.subList(100, 150));
+
+        clusterView = mock(ClusterView.class);
+        shardClient = mock(ShardClient.class);
+        when(shardClient.pushSlice(anyString(), anyString(), anyString(), anyInt(), anyInt(), any()))
+                .thenReturn(Uni.createFrom().voidItem());
+
+        shard = new PatientShard();
+        shard.keycloak = keycloak;
+        shard.clusterView = clusterView;
+        shard.shardClient = shardClient;
+        shard.realm = "journal";
+        shard.ttl = Duration.ofMinutes(5);
+        shard.pushGrace = Duration.ofSeconds(30);
+        shard.pushChunkSize = 2000;
+    }
+
+    @Test
+    void searchFiltersBeforeLimitAndReturnsSortedByName() {
+        when(clusterView.current()).thenReturn(ClusterView.viewOf(A, List.of(A)));
+
+        List<JsonObject> result = shard.search(new ShardQuery(null, "male", 21, 3)).await().indefinitely();
+
+        // The first matches by name all sit on the second page; limit applies to matches, not to scanned users
+        assertEquals(List.of("user008", "user018", "user028"),
+                result.stream().map(p -> p.getString("user_name")).toList());
+        assertEquals(0, shard.search(new ShardQuery("nobody", null, null, 3)).await().indefinitely().size());
+    }
+
+    @Test
+    void findByIdUsesSnapshot() {
+        when(clusterView.current()).thenReturn(ClusterView.viewOf(A, List.of(A)));
+
+        assertEquals("user049", shard.findById("id-100").await().indefinitely().orElseThrow().getString("user_name"));
+        assertFalse(shard.findById("missing").await().indefinitely().isPresent());
+
+        // Both lookups and the search share one build
+        shard.search(new ShardQuery(null, null, null, 10)).await().indefinitely();
+        verify(keycloak.realm("journal").users(), times(2)).list(anyInt(), anyInt());
+    }
+
+    @Test
+    void loaderKeepsOwnSliceAndPushesTheRest() {
+        ClusterView.View view = ClusterView.viewOf(A, List.of(A, B));
+        when(clusterView.current()).thenReturn(view);
+        when(clusterView.isClustered()).thenReturn(true);
+
+        List<JsonObject> own = shard.search(new ShardQuery(null, null, null, ShardQuery.MAX_LIMIT)).await().indefinitely();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<JsonObject>> pushed = ArgumentCaptor.forClass(List.class);
+        verify(shardClient).pushSlice(eq(B), eq(view.id()), anyString(), eq(0), eq(1), pushed.capture());
+
+        assertEquals(150, own.size() + pushed.getValue().size());
+        assertTrue(own.stream().allMatch(p -> view.ownerOf(p.getString("user_id")).equals(A)));
+        assertTrue(pushed.getValue().stream().allMatch(p -> view.ownerOf(p.getString("user_id")).equals(B)));
+    }
+
+    @Test
+    void loaderPushesSliceInOrderedChunks() {
+        ClusterView.View view = ClusterView.viewOf(A, List.of(A, B));
+        when(clusterView.current()).thenReturn(view);
+        when(clusterView.isClustered()).thenReturn(true);
+        shard.pushChunkSize = 20;
+
+        shard.refresh();
+
+        ArgumentCaptor<String> batches = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Integer> parts = ArgumentCaptor.forClass(Integer.class);
+        ArgumentCaptor<Integer> totals = ArgumentCaptor.forClass(Integer.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<JsonObject>> chunks = ArgumentCaptor.forClass(List.class);
+        verify(shardClient, atLeast(2)).pushSlice(eq(B), eq(view.id()), batches.capture(), parts.capture(), totals.capture(), chunks.capture());
+
+        int n = totals.getValue();
+        assertEquals(n, parts.getAllValues().size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, parts.getAllValues().get(i));
+            assertTrue(chunks.getAllValues().get(i).size() <= 20);
+        }
+        assertEquals(1, batches.getAllValues().stream().distinct().count());
+    }
+
+    @Test
+    void nonLoaderColdStartOnlyKeepsOwnSlice() {
+        ClusterView.View view = ClusterView.viewOf(B, List.of(A, B));
+        when(clusterView.current()).thenReturn(view);
+        when(clusterView.isClustered()).thenReturn(true);
+
+        List<JsonObject> own = shard.search(new ShardQuery(null, null, null, ShardQuery.MAX_LIMIT)).await().indefinitely();
+
+        assertFalse(own.isEmpty());
+        assertTrue(own.stream().allMatch(p -> view.ownerOf(p.getString("user_id")).equals(B)));
+        verify(shardClient, never()).pushSlice(anyString(), anyString(), anyString(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void pushedChunksAreInstalledOnceCompleteWithoutScanning() {
+        ClusterView.View view = ClusterView.viewOf(B, List.of(A, B));
+        when(clusterView.current()).thenReturn(view);
+        when(clusterView.isClustered()).thenReturn(true);
+
+        shard.receiveChunk(view.id(), "batch", 0, 2, List.of(patient("x", "zed")));
+        // Out of order or from another batch
+        assertThrows(WebApplicationException.class, () -> shard.receiveChunk(view.id(), "other", 1, 2, List.of()));
+        shard.receiveChunk(view.id(), "batch", 1, 2, List.of(patient("y", "Amy")));
+
+        List<JsonObject> result = shard.search(new ShardQuery(null, null, null, 10)).await().indefinitely();
+        assertEquals(List.of("Amy", "zed"), result.stream().map(p -> p.getString("user_name")).toList());
+        verify(keycloak.realm("journal").users(), never()).list(anyInt(), anyInt());
+    }
+
+    @Test
+    void chunkForAnotherViewIsRejected() {
+        ClusterView.View view = ClusterView.viewOf(B, List.of(A, B));
+        when(clusterView.current()).thenReturn(view);
+        when(clusterView.isClustered()).thenReturn(true);
+        shard.receiveChunk(view.id(), "new", 0, 1, List.of(patient("y", "Amy")));
+
+        // A late push from a loader that still had the old membership
+        WebApplicationException e = assertThrows(WebApplicationException.class,
+                () -> shard.receiveChunk(ClusterView.viewOf(B, List.of(B)).id(), "old", 0, 1, List.of(patient("x", "zed"))));
+        assertEquals(409, e.getResponse().getStatus());
+
+        List<JsonObject> result = shard.search(new ShardQuery(null, null, null, 10)).await().indefinitely();
+        assertEquals(List.of("Amy"), result.stream().map(p -> p.getString("user_name")).toList());
+    }
+
+    @Test
+    void snapshotForOlderViewIsNotServed() {
+        ClusterView.View before = ClusterView.viewOf(B, List.of(A, B));
+        ClusterView.View after = ClusterView.viewOf(B, List.of(A, B, "http://localhost:8085"));
+        when(clusterView.current()).thenReturn(before);
+        when(clusterView.isClustered()).thenReturn(true);
+        shard.receiveChunk(before.id(), "batch", 0, 1, List.of(patient("y", "Amy")));
+
+        when(clusterView.current()).thenReturn(after);
+
+        assertThrows(ServiceUnavailableException.class,
+                () -> shard.search(new ShardQuery(null, null, null, 10)).await().indefinitely());
+        assertThrows(ServiceUnavailableException.class,
+                () -> shard.findById("y").await().indefinitely());
+    }
+
+    @Test
+    void singleReplicaDoesNothingUntilFirstRequest() {
+        when(clusterView.current()).thenReturn(ClusterView.viewOf(A, List.of(A)));
+
+        shard.onStart(null);
+        shard.scheduledRefresh();
+        verify(keycloak.realm("journal").users(), never()).list(anyInt(), anyInt());
+
+        shard.search(new ShardQuery(null, null, null, 10)).await().indefinitely();
+        verify(keycloak.realm("journal").users(), times(2)).list(anyInt(), anyInt());
+    }
+
+    private static JsonObject patient(String id, String name) {
+        return new JsonObject().put("user_id", id).put("user_name", name);
+    }
+}
@@ -0,0 +1,54 @@
+package fullstack2.cluster;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardQueryTest {
+
+    private final JsonObject anna = new JsonObject()
+            .put("user_id", "1")
+            .put("user_name", "Anna.Svensson")
+            .put("gender", "female")
+            .put("age", "42");
+
+    @Test
+    void nameMatchesCaseInsensitivePrefix() {
+        assertTrue(new ShardQuery("anna", null, null, 0).matches(anna));
+        assertTrue(new ShardQuery("ANNA.S", null, null, 0).matches(anna));
+        assertFalse(new ShardQuery("svensson", null, null, 0).matches(anna));
+        assertFalse(new ShardQuery("anna", null, null, 0).matches(new JsonObject().put("user_id", "2")));
+    }
+
+    @Test
+    void genderAndAgeMustAllMatch() {
+        assertTrue(new ShardQuery(null, "FEMALE", 42, 0).matches(anna));
+        assertFalse(new ShardQuery(null, "male", null, 0).matches(anna));
+        // age is stored as a string attribute
+        assertFalse(new ShardQuery(null, null, 41, 0).matches(anna));
+        assertFalse(new ShardQuery(null, "female", 41, 0).matches(anna));
+    }
+
+    @Test
+    void blankFiltersAreIgnoredAndLimitIsClamped() {
+        ShardQuery query = new ShardQuery(" ", "", null, -3);
+        assertNull(query.name());
+        assertNull(query.gender());
+        assertEquals(ShardQuery.DEFAULT_LIMIT, query.limit());
+        assertTrue(query.matches(anna));
+
+        assertEquals(ShardQuery.MAX_LIMIT, new ShardQuery(null, null, null, 10_000).limit());
+        assertEquals(7, new ShardQuery(null, null, null, 7).limit());
+    }
+
+    @Test
+    void queryStringIsEncoded() {
+        assertEquals("name=%C3%A5sa+b%26c&gender=f&age=30&limit=10",
+                new ShardQuery("åsa b&c", "f", 30, 10).toQueryString());
+        assertEquals("limit=50", new ShardQuery(null, null, null, 0).toQueryString());
+    }
+}
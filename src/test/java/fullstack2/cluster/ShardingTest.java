@@ -0,0 +1,69 @@
+package fullstack2.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardingTest {
+
+    @Test
+    void ringSpreadsKeysAndOnlyMovesKeysOfNewMember() {
+        List<String> two = List.of("http://localhost:8083", "http://localhost:8084");
+        List<String> three = List.of("http://localhost:8083", "http://localhost:8084", "http://localhost:8085");
+        ConsistentHashRing before = new ConsistentHashRing(two);
+        ConsistentHashRing after = new ConsistentHashRing(three);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = "user-" + i;
+            String oldOwner = before.ownerOf(key);
+            String newOwner = after.ownerOf(key);
+            counts.merge(newOwner, 1, Integer::sum);
+
+            // A key either stays put or moves to the replica that joined
+            assertTrue(oldOwner.equals(newOwner) || newOwner.equals("http://localhost:8085"));
+        }
+
+        for (String member : three) {
+            assertTrue(counts.getOrDefault(member, 0) > 600, "uneven spread: " + counts);
+        }
+    }
+
+    @Test
+    void mergeKeepsOrderAndStopsAtK() {
+        List<List<Integer>> parts = List.of(
+                List.of(1, 4, 7),
+                List.of(),
+                List.of(2, 3, 9),
+                List.of(5));
+
+        assertEquals(List.of(1, 2, 3, 4, 5), TopKMerge.merge(parts, Comparator.naturalOrder(), 5, i -> i));
+        assertEquals(List.of(1, 2, 3, 4, 5, 7, 9), TopKMerge.merge(parts, Comparator.naturalOrder(), 50, i -> i));
+    }
+
+    @Test
+    void mergeDropsItemsReturnedByTwoShards() {
+        List<List<String>> parts = List.of(
+                List.of("anna:1", "bo:2"),
+                List.of("anna:1", "cia:3"));
+
+        assertEquals(List.of("anna:1", "bo:2", "cia:3"),
+                TopKMerge.merge(parts, Comparator.naturalOrder(), 3, s -> s.split(":")[1]));
+    }
+
+    @Test
+    void viewIdIsIndependentOfMemberOrder() {
+        ClusterView.View a = ClusterView.viewOf("http://b:1", List.of("http://b:1", "http://a:1"));
+        ClusterView.View b = ClusterView.viewOf("http://a:1", List.of("http://a:1", "http://b:1"));
+
+        assertEquals(a.id(), b.id());
+        assertEquals("http://a:1", a.loader());
+        assertTrue(b.isLoader());
+    }
+}